@@ -0,0 +1,203 @@
+package lamprey.javafx.util.effect;
+
+/**
+ * Describes where, how often and for how long a {@link ParticleFall} spawns
+ * particles. Once an emitter is set, the number of particles of the effect
+ * becomes the capacity of a pool of preallocated particle slots: spawning takes
+ * a free slot, expiry returns the slot, and only when every slot is in use is
+ * the oldest particle recycled. Neither spawning nor expiry allocates.
+ *
+ * Positions are relative to the bounds of the effect, where (0, 0) is the top
+ * left corner and (1, 1) is the bottom right corner. Emitters are immutable. To
+ * change an emitter, set a new one on the effect.
+ */
+public final class ParticleEmitter {
+
+    /**
+     * The shape particles are spawned from.
+     */
+    public enum Shape {
+
+        /** Spawn along the edge the particles fall from. */
+        EDGE,
+
+        /** Spawn at a single point. */
+        POINT,
+
+        /** Spawn anywhere along a line segment. */
+        LINE
+    }
+
+    private final Shape shape;
+    private final double x1;
+    private final double y1;
+    private final double x2;
+    private final double y2;
+    private final double rate;
+    private final int burst;
+    private final double lifetime;
+    private final double spread;
+
+    /**
+     * Constructor.
+     *
+     * @param shape The shape particles are spawned from.
+     * @param x1 The relative x position of the point, or of the start of the line.
+     *            Ignored for {@link Shape#EDGE}.
+     * @param y1 The relative y position of the point, or of the start of the line.
+     *            Ignored for {@link Shape#EDGE}.
+     * @param x2 The relative x position of the end of the line. Only used for
+     *            {@link Shape#LINE}.
+     * @param y2 The relative y position of the end of the line. Only used for
+     *            {@link Shape#LINE}.
+     * @param rate The number of particles spawned per second. 0 disables
+     *            continuous emission.
+     * @param burst The number of particles spawned by
+     *            {@link ParticleFall#burst()}.
+     * @param lifetime The lifetime of each particle in seconds. 0 lets particles
+     *            live until they leave the bounds.
+     * @param spread The total angle in degrees that particles are randomly spread
+     *            across, centered on the fall angle.
+     */
+    public ParticleEmitter(Shape shape,
+                           double x1,
+                           double y1,
+                           double x2,
+                           double y2,
+                           double rate,
+                           int burst,
+                           double lifetime,
+                           double spread) {
+        if (shape == null) {
+            throw new IllegalArgumentException("shape must not be null");
+        }
+        this.shape = shape;
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+        this.rate = Math.max(0, rate);
+        this.burst = Math.max(0, burst);
+        this.lifetime = Math.max(0, lifetime);
+        this.spread = spread;
+    }
+
+    /**
+     * Create an emitter which spawns along the edge the particles fall from.
+     *
+     * @param rate The number of particles spawned per second.
+     * @param burst The number of particles spawned by {@link ParticleFall#burst()}.
+     * @param lifetime The lifetime of each particle in seconds, or 0 to live until
+     *            leaving the bounds.
+     * @param spread The total spread angle in degrees.
+     * @return The emitter.
+     */
+    public static ParticleEmitter edge(double rate, int burst, double lifetime, double spread) {
+        return new ParticleEmitter(Shape.EDGE, 0, 0, 0, 0, rate, burst, lifetime, spread);
+    }
+
+    /**
+     * Create an emitter which spawns at a single point.
+     *
+     * @param x The relative x position of the point.
+     * @param y The relative y position of the point.
+     * @param rate The number of particles spawned per second.
+     * @param burst The number of particles spawned by {@link ParticleFall#burst()}.
+     * @param lifetime The lifetime of each particle in seconds, or 0 to live until
+     *            leaving the bounds.
+     * @param spread The total spread angle in degrees.
+     * @return The emitter.
+     */
+    public static ParticleEmitter point(double x, double y, double rate, int burst, double lifetime, double spread) {
+        return new ParticleEmitter(Shape.POINT, x, y, x, y, rate, burst, lifetime, spread);
+    }
+
+    /**
+     * Create an emitter which spawns anywhere along a line segment.
+     *
+     * @param x1 The relative x position of the start of the line.
+     * @param y1 The relative y position of the start of the line.
+     * @param x2 The relative x position of the end of the line.
+     * @param y2 The relative y position of the end of the line.
+     * @param rate The number of particles spawned per second.
+     * @param burst The number of particles spawned by {@link ParticleFall#burst()}.
+     * @param lifetime The lifetime of each particle in seconds, or 0 to live until
+     *            leaving the bounds.
+     * @param spread The total spread angle in degrees.
+     * @return The emitter.
+     */
+    public static ParticleEmitter line(double x1,
+                                       double y1,
+                                       double x2,
+                                       double y2,
+                                       double rate,
+                                       int burst,
+                                       double lifetime,
+                                       double spread) {
+        return new ParticleEmitter(Shape.LINE, x1, y1, x2, y2, rate, burst, lifetime, spread);
+    }
+
+    /**
+     * @return The shape particles are spawned from.
+     */
+    public Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * @return The relative x position of the point, or of the start of the line.
+     */
+    public double getX1() {
+        return x1;
+    }
+
+    /**
+     * @return The relative y position of the point, or of the start of the line.
+     */
+    public double getY1() {
+        return y1;
+    }
+
+    /**
+     * @return The relative x position of the end of the line.
+     */
+    public double getX2() {
+        return x2;
+    }
+
+    /**
+     * @return The relative y position of the end of the line.
+     */
+    public double getY2() {
+        return y2;
+    }
+
+    /**
+     * @return The number of particles spawned per second.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return The number of particles spawned by {@link ParticleFall#burst()}.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return The lifetime of each particle in seconds, or 0 if particles live
+     *         until leaving the bounds.
+     */
+    public double getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * @return The total spread angle in degrees.
+     */
+    public double getSpread() {
+        return spread;
+    }
+}
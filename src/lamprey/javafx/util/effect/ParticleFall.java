@@ -1,5 +1,14 @@
 package lamprey.javafx.util.effect;
 
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,13 +20,21 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
 import javafx.geometry.Bounds;
 import javafx.geometry.Orientation;
+import javafx.geometry.Point2D;
 import javafx.scene.Node;
 import javafx.scene.effect.Blend;
 import javafx.scene.effect.BlendMode;
+import javafx.scene.effect.ColorInput;
+import javafx.scene.effect.Effect;
+import javafx.scene.effect.GaussianBlur;
 import javafx.scene.effect.ImageInput;
 import javafx.scene.effect.PerspectiveTransform;
+import javafx.scene.paint.Color;
 import javafx.stage.Screen;
 
 /**
@@ -40,18 +57,38 @@ import javafx.stage.Screen;
  * ParticleFall snow = new ParticleFall(source, bounds, numParticles, speed);
  * </pre>
  * 
+ * The full simulation state may be saved with {@link #saveSnapshot(Path)} and
+ * resumed exactly with {@link #restoreSnapshot(Path)}.
+ * 
  * @param sourceProperty The source image used by each particle. TODO: Allow
  *            multiple source images that particles will randomly pick from
  *            while generating.
  * @param boundsProperty The viewport which the particles are drawn in.
  *            Typically the local bounds of the parent.
  * @param numParticlesProperty The number of particles on the screen at any
- *            given moment.
+ *            given moment. If an emitter is set, this is the maximum number of
+ *            live particles instead.
  * @param speedProperty Multiplier controlling the speed of the particles.
  * @param minSizeProperty The minimum size of the particles. This is a
  *            multiplier.
  * @param maxSizeProperty The maximum size of the particles. This is a
  *            multiplier.
+ * @param layers The depth layers of this effect, farthest first. Particles are
+ *            distributed evenly across the layers, and each layer is rendered
+ *            as a single batch with its own size range, speed, blur and
+ *            opacity. If empty, a single layer using minSize and maxSize is
+ *            used.
+ * @param emitterProperty The emitter which spawns particles. May be set to
+ *            null for a fixed population which respawns along the edge.
+ * @param pointerProperty The position of the mouse or touch pointer in the
+ *            coordinates of the bounds. May be set to null when there is no
+ *            pointer.
+ * @param pointerModeProperty How particles near the pointer react. May be set
+ *            to null to disable pointer interaction entirely.
+ * @param pointerRadiusProperty The radius around the pointer in which
+ *            particles react, in pixels.
+ * @param pointerStrengthProperty Multiplier controlling how strongly
+ *            particles react to the pointer.
  * @param fallAngleProperty The angle at which the particles will fall, in
  *            degrees.
  * @param spinSpeedProperty The speed multiplier for the spin.
@@ -64,9 +101,44 @@ import javafx.stage.Screen;
  */
 public class ParticleFall extends Blend {
     
+    /**
+     * How particles near the pointer react to it.
+     */
+    public enum PointerMode {
+        
+        /** Push particles away from the pointer. */
+        REPEL,
+        
+        /** Swirl particles around the pointer. */
+        SWIRL
+    }
+    
     // Structural constants
+    private static final double MAX_ELAPSED     = 0.1;
+    private static final double POINTER_FORCE   = 2;
+    private static final double POINTER_DAMPING = 0.9;
+    private static final int    SNAPSHOT_MAGIC   = 0x50464C53; // "PFLS"
+    private static final short  SNAPSHOT_VERSION = 1;
+    private static final int    SNAPSHOT_PARTICLE_BYTES = 10 * Double.BYTES + 1 + 2 * Integer.BYTES;
     private final List<Particle> particles;
     private final AnimationTimer animation;
+    private final SpatialGrid grid = new SpatialGrid();
+    private final ParticleRandom random = new ParticleRandom(System.nanoTime());
+    
+    // Emitter state. Particles are preallocated slots, and the indices of the
+    // dead ones are kept on a stack for spawning to pop from. The live ones are
+    // linked in spawn order through prev and next, from oldest to newest.
+    private int[]  free = new int[0];
+    private int    freeCount;
+    private int[]  prev = new int[0];
+    private int[]  next = new int[0];
+    private int    oldest = -1;
+    private int    newest = -1;
+    private double pending;
+    private long   lastTick = -1;
+    
+    // Set while a snapshot is applied, so the parameters don't each rebuild the particles
+    private boolean restoring;
     
     // Properties
     private final ObjectProperty<ImageInput>  src             = new SimpleObjectProperty<>();
@@ -79,6 +151,18 @@ public class ParticleFall extends Blend {
     private final DoubleProperty              fallAngle       = new SimpleDoubleProperty(0);
     private final DoubleProperty              spinSpeed       = new SimpleDoubleProperty(20);
     
+    // Depth layers, farthest first
+    private final ObservableList<ParticleLayer> layers = FXCollections.observableArrayList();
+    
+    // Spawning, null for a fixed population
+    private final ObjectProperty<ParticleEmitter> emitter = new SimpleObjectProperty<>();
+    
+    // Pointer interaction
+    private final ObjectProperty<Point2D>     pointer         = new SimpleObjectProperty<>();
+    private final ObjectProperty<PointerMode> pointerMode     = new SimpleObjectProperty<>(PointerMode.REPEL);
+    private final DoubleProperty              pointerRadius   = new SimpleDoubleProperty(100);
+    private final DoubleProperty              pointerStrength = new SimpleDoubleProperty(1);
+    
     /**
      * Constructor.
      * 
@@ -100,17 +184,187 @@ public class ParticleFall extends Blend {
         animation = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                for (Particle particle : particles) {
-                    particle.updatePosition();
-                }
+                tick(now);
             }
         };
-        numParticles.addListener((observable, oldVal, newVal) -> setTopInput(createEffectChain(this.src.get(), newVal.intValue())));
-        this.src.addListener((obs, oldVal, newVal) -> setTopInput(createEffectChain(newVal, numParticles.get())));
+        numParticles.addListener((observable, oldVal, newVal) -> {
+            if (!restoring) {
+                rebuildEffectChain();
+            }
+        });
+        this.src.addListener((obs, oldVal, newVal) -> rebuildEffectChain());
+        layers.addListener((ListChangeListener<ParticleLayer>) change -> {
+            // Layer assignments change with the layers, so regenerate every particle
+            if (!restoring) {
+                particles.clear();
+                rebuildEffectChain();
+            }
+        });
+        emitter.addListener((obs, oldVal, newVal) -> {
+            // Switching between emitted and fixed populations regenerates every particle
+            if (!restoring) {
+                particles.clear();
+                pending = 0;
+                rebuildEffectChain();
+            }
+        });
         setMode(BlendMode.SRC_OVER);
         setTopInput(createEffectChain(src, numParticles.get()));
     }
     
+    /**
+     * Advance the animation by one frame.
+     *
+     * @param now The timestamp of the current frame in nanoseconds.
+     */
+    private void tick(long now) {
+        applyPointer();
+        
+        final ParticleEmitter emitter = this.emitter.get();
+        if (emitter == null) {
+            for (Particle particle : particles) {
+                particle.updatePosition();
+            }
+            return;
+        }
+        
+        // Clamp the elapsed time so a paused animation doesn't resume with a huge burst
+        final double elapsed = lastTick < 0 ? 0 : Math.min(MAX_ELAPSED, (now - lastTick) / 1e9);
+        lastTick = now;
+        
+        // Continuous emission, carrying fractional particles over to the next frame
+        pending += emitter.getRate() * elapsed;
+        final int count = (int) pending;
+        pending -= count;
+        emit(emitter, count);
+        
+        // Age and move the live particles
+        for (Particle particle : particles) {
+            if (particle.alive) {
+                particle.age += elapsed;
+                if (emitter.getLifetime() > 0 && particle.age >= emitter.getLifetime()) {
+                    particle.kill();
+                } else {
+                    particle.updatePosition();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Push the particles near the pointer. The particles are hashed into a grid
+     * of cells as large as the pointer radius, so only the cells around the
+     * pointer are visited.
+     */
+    private void applyPointer() {
+        final Point2D pointer = this.pointer.get();
+        final PointerMode mode = pointerMode.get();
+        final Bounds bounds = this.bounds.get();
+        final double radius = pointerRadius.get();
+        if (pointer == null || mode == null || bounds == null || radius <= 0) {
+            return;
+        }
+        
+        // Positions are scaled by the bounds, so empty bounds (e.g. before layout) would produce NaN
+        if (bounds.getWidth() <= 0 || bounds.getHeight() <= 0 || bounds.getMaxX() <= 0 || bounds.getMaxY() <= 0) {
+            return;
+        }
+        
+        // Rebuild the grid from the current particle positions, which are laid
+        // out from the origin just like they are drawn
+        grid.reset(0, 0, bounds.getMaxX(), bounds.getMaxY(), radius, particles.size());
+        for (int i = 0; i < particles.size(); i++) {
+            final Particle particle = particles.get(i);
+            if (particle.alive) {
+                grid.insert(i, particle.centerX(), particle.centerY());
+            }
+        }
+        grid.build();
+        
+        // Only the particles in the cells around the pointer can be in range
+        final int found = grid.query(pointer.getX(), pointer.getY(), radius);
+        for (int i = 0; i < found; i++) {
+            particles.get(grid.result(i)).push(pointer, mode, radius);
+        }
+    }
+    
+    /**
+     * Spawn particles into free slots. Only if every slot is in use is the
+     * oldest particle recycled.
+     *
+     * @param emitter The emitter to spawn the particles from.
+     * @param count The number of particles to spawn.
+     */
+    private void emit(ParticleEmitter emitter, int count) {
+        if (particles.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (freeCount == 0) {
+                particles.get(oldest).kill();
+            }
+            final int slot = free[--freeCount];
+            particles.get(slot).emit(emitter);
+            link(slot);
+        }
+    }
+    
+    /**
+     * Append a slot to the newest end of the spawn order.
+     *
+     * @param slot The slot of a particle which was just spawned.
+     */
+    private void link(int slot) {
+        prev[slot] = newest;
+        next[slot] = -1;
+        if (newest >= 0) {
+            next[newest] = slot;
+        } else {
+            oldest = slot;
+        }
+        newest = slot;
+    }
+    
+    /**
+     * Remove a slot from the spawn order.
+     *
+     * @param slot The slot of a particle which just expired.
+     */
+    private void unlink(int slot) {
+        if (prev[slot] >= 0) {
+            next[prev[slot]] = next[slot];
+        } else {
+            oldest = next[slot];
+        }
+        if (next[slot] >= 0) {
+            prev[next[slot]] = prev[slot];
+        } else {
+            newest = prev[slot];
+        }
+    }
+    
+    /**
+     * Recreate the effect chain from the current properties.
+     */
+    private void rebuildEffectChain() {
+        setTopInput(createEffectChain(src.get(), numParticles.get()));
+        
+        // Start over with every slot free, lowest index on top of the stack
+        freeCount = 0;
+        oldest = -1;
+        newest = -1;
+        if (emitter.get() != null) {
+            free = new int[particles.size()];
+            prev = new int[particles.size()];
+            next = new int[particles.size()];
+            for (int i = particles.size() - 1; i >= 0; i--) {
+                particles.get(i).alive = false;
+                particles.get(i).hide();
+                free[freeCount++] = i;
+            }
+        }
+    }
+    
     /**
      * This class represent the snowflake image.
      */
@@ -119,6 +373,8 @@ public class ParticleFall extends Blend {
         // Calculated constants
         private final double yAxis;
         private final double xAxis;
+        private final ParticleLayer layer;
+        private final int slot;
         
         // The particle attributes
         private double x;
@@ -127,22 +383,32 @@ public class ParticleFall extends Blend {
         private double speed;
         private double spin;
         private double currentSpin;
+        private double angle;
+        private double vx;
+        private double vy;
+        private double age;
+        private boolean alive = true;
         
         /**
          * Particle Constructor.
          * 
          * @param src The source image for this particle.
+         * @param layer The depth layer of this particle, or null to use the
+         *            default layer.
+         * @param slot The index of this particle.
          */
-        Particle(ImageInput src) {
+        Particle(ImageInput src, ParticleLayer layer, int slot) {
             setInput(src);
             yAxis = src.getSource().getWidth() / 2;
             xAxis = src.getSource().getHeight() / 2;
+            this.layer = layer;
+            this.slot = slot;
             generate();
             
             // Set initial position to random
             final double max = 1 - calculateMovementIncrement();
-            x = Math.random() * max;
-            y = Math.random() * max;
+            x = random.nextDouble() * max;
+            y = random.nextDouble() * max;
         }
         
         /**
@@ -151,9 +417,13 @@ public class ParticleFall extends Blend {
         void generate() {
             
             // Set randomized values
-            speed = 1 + Math.random() * 0.2;
-            size = (maxSize.get() - minSize.get()) * Math.random() + minSize.get();
-            spin = Math.random();
+            speed = 1 + random.nextDouble() * 0.2;
+            final double min = layer != null ? layer.getMinSize() : minSize.get();
+            final double max = layer != null ? layer.getMaxSize() : maxSize.get();
+            size = (max - min) * random.nextDouble() + min;
+            spin = random.nextDouble();
+            vx = 0;
+            vy = 0;
             
             // Determine the update increment
             final double inc = calculateMovementIncrement();
@@ -161,13 +431,71 @@ public class ParticleFall extends Blend {
             // Determine a random starting point along the edge
             double cos = Math.cos(Math.toRadians(fallAngle.get()));
             double sin = Math.sin(Math.toRadians(fallAngle.get()));
-            if (Math.random() < Math.abs(cos)) {
-                x = Math.random() * (1 - inc);
+            if (random.nextDouble() < Math.abs(cos)) {
+                x = random.nextDouble() * (1 - inc);
                 y = cos >= 0 ? inc : 1 - inc;
             } else {
                 x = sin >= 0 ? inc : 1 - inc;
-                y = Math.random() * (1 - inc);
+                y = random.nextDouble() * (1 - inc);
+            }
+        }
+        
+        /**
+         * Spawn this particle from an emitter.
+         * 
+         * @param emitter The emitter to spawn from.
+         */
+        void emit(ParticleEmitter emitter) {
+            generate();
+            angle = (random.nextDouble() - 0.5) * emitter.getSpread();
+            age = 0;
+            alive = true;
+            
+            // Edge emitters keep the generated position
+            switch (emitter.getShape()) {
+                case POINT:
+                    x = emitter.getX1();
+                    y = emitter.getY1();
+                    break;
+                case LINE:
+                    final double t = random.nextDouble();
+                    x = emitter.getX1() + (emitter.getX2() - emitter.getX1()) * t;
+                    y = emitter.getY1() + (emitter.getY2() - emitter.getY1()) * t;
+                    break;
+                default:
+                    break;
+            }
+            
+            // Keep the particle inside the bounds so it isn't expired immediately
+            final double inc = calculateMovementIncrement();
+            x = Math.min(1 - inc, Math.max(inc, x));
+            y = Math.min(1 - inc, Math.max(inc, y));
+        }
+        
+        /**
+         * Expire this particle, freeing its slot and hiding it.
+         */
+        void kill() {
+            if (alive) {
+                alive = false;
+                unlink(slot);
+                free[freeCount++] = slot;
             }
+            hide();
+        }
+        
+        /**
+         * Collapse this particle so it isn't drawn.
+         */
+        void hide() {
+            setUlx(0);
+            setLlx(0);
+            setUrx(0);
+            setLrx(0);
+            setUly(0);
+            setUry(0);
+            setLly(0);
+            setLry(0);
         }
         
         /**
@@ -178,15 +506,22 @@ public class ParticleFall extends Blend {
             // Increment the position
             final double inc = calculateMovementIncrement();
             
-            // If reached the end, re-init the particle's position and speed
+            // If reached the end, re-init the particle's position and speed, or
+            // expire it if it was spawned by an emitter
             if (x > 1 - inc || x < inc || y > 1 - inc || y < inc) {
+                if (emitter.get() != null) {
+                    kill();
+                    return;
+                }
                 generate();
             } else {
                 // Update x and y location
-                double cosAngle = Math.cos(Math.toRadians(fallAngle.get()));
-                double sinAngle = Math.sin(Math.toRadians(fallAngle.get()));
-                x += inc * sinAngle;
-                y += inc * cosAngle;
+                double cosAngle = Math.cos(Math.toRadians(fallAngle.get() + angle));
+                double sinAngle = Math.sin(Math.toRadians(fallAngle.get() + angle));
+                x += inc * sinAngle + vx;
+                y += inc * cosAngle + vy;
+                vx *= POINTER_DAMPING;
+                vy *= POINTER_DAMPING;
                 currentSpin = Math.cos((sinAngle * x + cosAngle * y) * spin * spinSpeed.get());
             }
             
@@ -194,6 +529,45 @@ public class ParticleFall extends Blend {
             convertPositionToLocalBounds();
         }
         
+        /**
+         * @return The x pixel location of the center of this particle.
+         */
+        private double centerX() {
+            return x * bounds.get().getMaxX() + yAxis;
+        }
+        
+        /**
+         * @return The y pixel location of the center of this particle.
+         */
+        private double centerY() {
+            return y * bounds.get().getMaxY() + xAxis;
+        }
+        
+        /**
+         * Accelerate this particle if it is within range of the pointer. The
+         * force falls off linearly towards the edge of the radius.
+         * 
+         * @param pointer The pointer position.
+         * @param mode How to react to the pointer.
+         * @param radius The radius around the pointer in which particles react.
+         */
+        private void push(Point2D pointer, PointerMode mode, double radius) {
+            final double dx = centerX() - pointer.getX();
+            final double dy = centerY() - pointer.getY();
+            final double distSq = dx * dx + dy * dy;
+            if (distSq >= radius * radius || distSq == 0) {
+                return;
+            }
+            final double dist = Math.sqrt(distSq);
+            final double force = pointerStrength.get() * POINTER_FORCE * (1 - dist / radius) / dist;
+            
+            // Repel along the direction away from the pointer, swirl perpendicular to it
+            final double fx = mode == PointerMode.REPEL ? dx : -dy;
+            final double fy = mode == PointerMode.REPEL ? dy : dx;
+            vx += fx * force / bounds.get().getMaxX();
+            vy += fy * force / bounds.get().getMaxY();
+        }
+        
         /**
          * Turn relative position into an actual pixel location.
          */
@@ -255,7 +629,8 @@ public class ParticleFall extends Blend {
          * @return The amount of pixels to move the particle at the given speed.
          */
         private double calculateMovementIncrement() {
-            return ParticleFall.this.speed.get() * speed * 0.01;
+            final double layerSpeed = layer != null ? layer.getSpeed() : 1;
+            return ParticleFall.this.speed.get() * layerSpeed * speed * 0.01;
         }
     }
     
@@ -266,25 +641,527 @@ public class ParticleFall extends Blend {
      * @param The number of particles to generate
      * @return The effect chain for this snow.
      */
-    private Blend createEffectChain(ImageInput src, int numParticles) {
+    private Effect createEffectChain(ImageInput src, int numParticles) {
         
         // Don't recreate particles if just adding more of the same
         if (numParticles < particles.size() || (!particles.isEmpty() && particles.get(0).getInput() != src)) {
             particles.clear();
         }
         
-        // Create the effect chain
-        Blend blend = new Blend(BlendMode.ADD);
+        // Particle i belongs to layer i % numLayers
+        final int numLayers = Math.max(1, layers.size());
         for (int i = particles.size(); i < numParticles; i++) {
-            final Particle particle = new Particle(src);
-            particles.add(particle);
-            blend.setTopInput(particle);
-            final Blend next = new Blend(BlendMode.ADD);
-            next.setBottomInput(blend);
-            blend = next;
+            particles.add(new Particle(src, layers.isEmpty() ? null : layers.get(i % numLayers), i));
+        }
+        
+        // The default layer has no blur or opacity to apply
+        if (layers.isEmpty()) {
+            return createLayerChain(0, 1);
+        }
+        
+        // Composite one batch per layer, farthest first so nearer layers draw on top
+        Effect chain = createEmptyInput();
+        for (int l = 0; l < numLayers; l++) {
+            final ParticleLayer layer = layers.get(l);
+            Effect batch = createLayerChain(l, numLayers);
+            if (layer.getBlur() > 0) {
+                final GaussianBlur blur = new GaussianBlur(layer.getBlur());
+                blur.setInput(batch);
+                batch = blur;
+            }
+            final Blend composite = new Blend(BlendMode.SRC_OVER, chain, batch);
+            composite.setOpacity(layer.getOpacity());
+            chain = composite;
+        }
+        
+        return chain;
+    }
+    
+    /**
+     * Create the effect chain for the particles of a single layer. An empty layer
+     * gets a transparent input, since a null input would pull in the content of
+     * the node this effect is applied to.
+     * 
+     * The particles are combined as a balanced tree rather than a linear chain.
+     * Setting an input checks everything below it for cycles, and every particle
+     * update marks everything above it dirty, so the depth of the chain would
+     * otherwise make building it quadratic and every frame linear per particle.
+     *
+     * @param layer The index of the layer.
+     * @param numLayers The total number of layers.
+     * @return The effect chain for the particles of the given layer.
+     */
+    private Effect createLayerChain(int layer, int numLayers) {
+        if (layer >= particles.size()) {
+            return createEmptyInput();
+        }
+        return createLayerTree(layer, numLayers, 0, (particles.size() - layer - 1) / numLayers + 1);
+    }
+    
+    /**
+     * Combine a range of the particles of a layer into a balanced tree of blends.
+     *
+     * @param layer The index of the layer.
+     * @param numLayers The total number of layers.
+     * @param from The first particle of the layer to include.
+     * @param to The particle of the layer to stop before. Must be greater than from.
+     * @return The effect combining the given particles.
+     */
+    private Effect createLayerTree(int layer, int numLayers, int from, int to) {
+        if (to - from == 1) {
+            return particles.get(layer + from * numLayers);
         }
+        final int mid = (from + to) >>> 1;
+        return new Blend(BlendMode.ADD,
+                         createLayerTree(layer, numLayers, from, mid),
+                         createLayerTree(layer, numLayers, mid, to));
+    }
+    
+    /**
+     * @return A transparent input to seed an effect chain with.
+     */
+    private static Effect createEmptyInput() {
+        return new ColorInput(0, 0, 0, 0, Color.TRANSPARENT);
+    }
+    
+    /**
+     * Spawn the emitter's burst count of particles at once.
+     * 
+     * @throws IllegalStateException If no emitter is set.
+     */
+    public void burst() {
+        if (emitter.get() == null) {
+            throw new IllegalStateException("Cannot burst without an emitter");
+        }
+        burst(emitter.get().getBurst());
+    }
+    
+    /**
+     * Spawn the given number of particles at once. If this exceeds the free
+     * slots, the oldest particles are recycled.
+     * 
+     * @param count The number of particles to spawn.
+     * @throws IllegalStateException If no emitter is set.
+     */
+    public void burst(int count) {
+        if (emitter.get() == null) {
+            throw new IllegalStateException("Cannot burst without an emitter");
+        }
+        emit(emitter.get(), count);
+    }
+    
+    /**
+     * Save the full simulation state to a file: the parameters, the random number
+     * generator and every particle. The source image, bounds and pointer position
+     * are not saved. The file is written next to the target, flushed to the
+     * storage device and then moved into place, so an interrupted save or a power
+     * loss never leaves a partial snapshot behind.
+     * 
+     * @param path The file to save to.
+     * @throws IOException If the file could not be written.
+     */
+    public void saveSnapshot(Path path) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(snapshotSize());
+        writeSnapshot(buffer);
+        buffer.flip();
         
-        return blend;
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                                                        StandardOpenOption.CREATE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING,
+                                                        StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+    
+    /**
+     * Restore the simulation state saved by {@link #saveSnapshot(Path)}. The file
+     * is memory-mapped and read directly into the particles, so the effect
+     * resumes exactly where it was saved without any warm-up. The file is fully
+     * validated before any state is changed, so a failed restore leaves this
+     * effect untouched.
+     * 
+     * The mapping is only released once it is garbage collected. On Windows, a
+     * mapped file cannot be replaced, so saving to the same path right after a
+     * restore may fail until then; save to a different path in that case.
+     * 
+     * @param path The file to restore from.
+     * @throws IOException If the file could not be read or is not a valid
+     *             snapshot.
+     */
+    public void restoreSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readSnapshot(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Invalid particle snapshot: " + path, e);
+        }
+    }
+    
+    /**
+     * @return The size in bytes of a snapshot of the current state.
+     */
+    private int snapshotSize() {
+        final int header = Integer.BYTES + Short.BYTES;
+        final int params = Integer.BYTES + 5 * Double.BYTES + 1
+                + Integer.BYTES + layers.size() * 5 * Double.BYTES
+                + 1 + (emitter.get() != null ? 1 + 7 * Double.BYTES + Integer.BYTES : 0)
+                + 1 + 2 * Double.BYTES;
+        final int state = Long.BYTES + Integer.BYTES + Double.BYTES;
+        return header + params + state + Integer.BYTES + particles.size() * SNAPSHOT_PARTICLE_BYTES;
+    }
+    
+    /**
+     * Write a snapshot of the current state. Particle attributes are written
+     * column by column.
+     * 
+     * @param buffer The buffer to write to, with at least
+     *            {@link #snapshotSize()} bytes remaining.
+     */
+    private void writeSnapshot(ByteBuffer buffer) {
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putShort(SNAPSHOT_VERSION);
+        
+        // Parameters
+        buffer.putInt(numParticles.get());
+        buffer.putDouble(speed.get());
+        buffer.putDouble(minSize.get());
+        buffer.putDouble(maxSize.get());
+        buffer.putDouble(fallAngle.get());
+        buffer.putDouble(spinSpeed.get());
+        buffer.put((byte) (spinOrientation.get() != null ? spinOrientation.get().ordinal() : -1));
+        buffer.putInt(layers.size());
+        for (ParticleLayer layer : layers) {
+            buffer.putDouble(layer.getMinSize());
+            buffer.putDouble(layer.getMaxSize());
+            buffer.putDouble(layer.getSpeed());
+            buffer.putDouble(layer.getBlur());
+            buffer.putDouble(layer.getOpacity());
+        }
+        final ParticleEmitter emitter = this.emitter.get();
+        buffer.put((byte) (emitter != null ? 1 : 0));
+        if (emitter != null) {
+            buffer.put((byte) emitter.getShape().ordinal());
+            buffer.putDouble(emitter.getX1());
+            buffer.putDouble(emitter.getY1());
+            buffer.putDouble(emitter.getX2());
+            buffer.putDouble(emitter.getY2());
+            buffer.putDouble(emitter.getRate());
+            buffer.putInt(emitter.getBurst());
+            buffer.putDouble(emitter.getLifetime());
+            buffer.putDouble(emitter.getSpread());
+        }
+        buffer.put((byte) (pointerMode.get() != null ? pointerMode.get().ordinal() : -1));
+        buffer.putDouble(pointerRadius.get());
+        buffer.putDouble(pointerStrength.get());
+        
+        // Simulation state
+        buffer.putLong(random.getState());
+        buffer.putInt(freeCount);
+        buffer.putDouble(pending);
+        
+        // Particles
+        buffer.putInt(particles.size());
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.x);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.y);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.size);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.speed);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.spin);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.currentSpin);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.angle);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.vx);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.vy);
+        }
+        for (Particle particle : particles) {
+            buffer.putDouble(particle.age);
+        }
+        for (Particle particle : particles) {
+            buffer.put((byte) (particle.alive ? 1 : 0));
+        }
+        for (int i = 0; i < particles.size(); i++) {
+            buffer.putInt(i < freeCount ? free[i] : 0);
+        }
+        
+        // Spawn order of the live particles, oldest first
+        int written = 0;
+        for (int slot = oldest; slot >= 0; slot = next[slot]) {
+            buffer.putInt(slot);
+            written++;
+        }
+        for (; written < particles.size(); written++) {
+            buffer.putInt(0);
+        }
+    }
+    
+    /**
+     * Read a snapshot written by {@link #writeSnapshot(ByteBuffer)} and replace
+     * the current state with it. Everything is decoded and validated before any
+     * state is changed.
+     * 
+     * @param buffer The buffer to read from.
+     * @throws IOException If the buffer does not hold a valid snapshot.
+     */
+    private void readSnapshot(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a particle snapshot");
+        }
+        final short version = buffer.getShort();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported particle snapshot version " + version);
+        }
+        
+        // Parameters
+        final int count = buffer.getInt();
+        final double speed = buffer.getDouble();
+        final double minSize = buffer.getDouble();
+        final double maxSize = buffer.getDouble();
+        final double fallAngle = buffer.getDouble();
+        final double spinSpeed = buffer.getDouble();
+        final Orientation spinOrientation = readOrdinal(buffer, Orientation.values(), true);
+        final int numLayers = buffer.getInt();
+        if (numLayers < 0) {
+            throw new IOException("Particle snapshot has a negative layer count");
+        }
+        final List<ParticleLayer> layers = new ArrayList<>();
+        for (int i = 0; i < numLayers; i++) {
+            layers.add(new ParticleLayer(buffer.getDouble(),
+                                         buffer.getDouble(),
+                                         buffer.getDouble(),
+                                         buffer.getDouble(),
+                                         buffer.getDouble()));
+        }
+        ParticleEmitter emitter = null;
+        if (buffer.get() != 0) {
+            emitter = new ParticleEmitter(readOrdinal(buffer, ParticleEmitter.Shape.values(), false),
+                                          buffer.getDouble(),
+                                          buffer.getDouble(),
+                                          buffer.getDouble(),
+                                          buffer.getDouble(),
+                                          buffer.getDouble(),
+                                          buffer.getInt(),
+                                          buffer.getDouble(),
+                                          buffer.getDouble());
+        }
+        final PointerMode pointerMode = readOrdinal(buffer, PointerMode.values(), true);
+        final double pointerRadius = buffer.getDouble();
+        final double pointerStrength = buffer.getDouble();
+        
+        // Simulation state
+        final long randomState = buffer.getLong();
+        final int freeCount = buffer.getInt();
+        final double pending = buffer.getDouble();
+        
+        // Particles, checked in place before anything is regenerated
+        if (count < 0 || buffer.getInt() != count) {
+            throw new IOException("Particle snapshot has an invalid particle count");
+        }
+        if (buffer.remaining() != (long) count * SNAPSHOT_PARTICLE_BYTES) {
+            throw new IOException("Particle snapshot size does not match its particle count");
+        }
+        final int columns = buffer.position();
+        final int aliveColumn = columns + count * 10 * Double.BYTES;
+        final int freeColumn = aliveColumn + count;
+        final int orderColumn = freeColumn + count * Integer.BYTES;
+        int dead = 0;
+        for (int i = 0; i < count; i++) {
+            if (buffer.get(aliveColumn + i) == 0) {
+                dead++;
+            }
+        }
+        if (emitter == null && dead != 0) {
+            throw new IOException("Particle snapshot has dead particles but no emitter");
+        }
+        if (freeCount != dead) {
+            throw new IOException("Particle snapshot free slots do not match its dead particles");
+        }
+        final boolean[] freed = new boolean[count];
+        for (int i = 0; i < freeCount; i++) {
+            final int slot = buffer.getInt(freeColumn + i * Integer.BYTES);
+            if (slot < 0 || slot >= count || freed[slot] || buffer.get(aliveColumn + slot) != 0) {
+                throw new IOException("Particle snapshot has an invalid free slot " + slot);
+            }
+            freed[slot] = true;
+        }
+        final int numOrdered = emitter != null ? count - dead : 0;
+        final boolean[] ordered = new boolean[count];
+        for (int i = 0; i < numOrdered; i++) {
+            final int slot = buffer.getInt(orderColumn + i * Integer.BYTES);
+            if (slot < 0 || slot >= count || ordered[slot] || buffer.get(aliveColumn + slot) == 0) {
+                throw new IOException("Particle snapshot has an invalid spawn order slot " + slot);
+            }
+            ordered[slot] = true;
+        }
+        
+        // Apply the parameters with the rebuild listeners suppressed, then rebuild
+        // once. The particles are only regenerated if their layers changed, and
+        // are overwritten below either way.
+        final boolean sameLayers = sameLayers(this.layers, layers);
+        restoring = true;
+        try {
+            setSpeed(speed);
+            setMinSize(minSize);
+            setMaxSize(maxSize);
+            setFallAngle(fallAngle);
+            setSpinSpeed(spinSpeed);
+            setSpinOrientation(spinOrientation);
+            setPointerMode(pointerMode);
+            setPointerRadius(pointerRadius);
+            setPointerStrength(pointerStrength);
+            setNumParticles(count);
+            if (!sameLayers) {
+                setLayers(layers);
+            }
+            setEmitter(emitter);
+        } finally {
+            restoring = false;
+        }
+        if (!sameLayers) {
+            particles.clear();
+        }
+        rebuildEffectChain();
+        
+        random.setState(randomState);
+        this.pending = pending;
+        lastTick = -1;
+        
+        for (Particle particle : particles) {
+            particle.x = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.y = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.size = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.speed = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.spin = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.currentSpin = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.angle = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.vx = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.vy = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.age = buffer.getDouble();
+        }
+        for (Particle particle : particles) {
+            particle.alive = buffer.get() != 0;
+        }
+        if (free.length < count) {
+            free = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            free[i] = buffer.getInt();
+        }
+        this.freeCount = freeCount;
+        oldest = -1;
+        newest = -1;
+        for (int i = 0; i < count; i++) {
+            final int slot = buffer.getInt();
+            if (i < numOrdered) {
+                link(slot);
+            }
+        }
+        
+        // Show the restored particles right away rather than on the next frame
+        for (Particle particle : particles) {
+            if (!particle.alive) {
+                particle.hide();
+            } else if (bounds.get() != null) {
+                particle.convertPositionToLocalBounds();
+            }
+        }
+    }
+    
+    /**
+     * @param a Some layers.
+     * @param b Some other layers.
+     * @return Whether both lists hold layers with the same values, in the same
+     *         order.
+     */
+    private static boolean sameLayers(List<ParticleLayer> a, List<ParticleLayer> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            final ParticleLayer x = a.get(i);
+            final ParticleLayer y = b.get(i);
+            if (x.getMinSize() != y.getMinSize()
+                    || x.getMaxSize() != y.getMaxSize()
+                    || x.getSpeed() != y.getSpeed()
+                    || x.getBlur() != y.getBlur()
+                    || x.getOpacity() != y.getOpacity()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Read an enum constant stored as a byte ordinal.
+     * 
+     * @param buffer The buffer to read from.
+     * @param values The constants of the enum.
+     * @param nullable Whether -1 may be used to store null.
+     * @return The constant, or null if allowed and stored as -1.
+     * @throws IOException If the ordinal is out of range.
+     */
+    private static <T extends Enum<T>> T readOrdinal(ByteBuffer buffer, T[] values, boolean nullable) throws IOException {
+        final byte ordinal = buffer.get();
+        if (nullable && ordinal == -1) {
+            return null;
+        }
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IOException("Particle snapshot has an invalid " + values.getClass().getComponentType().getSimpleName() + " " + ordinal);
+        }
+        return values[ordinal];
+    }
+    
+    /**
+     * @return The number of particles currently alive. Without an emitter, this is
+     *         every particle.
+     */
+    public int getNumLiveParticles() {
+        return particles.size() - freeCount;
     }
     
     /**
@@ -442,6 +1319,146 @@ public class ParticleFall extends Blend {
         return maxSize.get();
     }
     
+    /**
+     * @return The depth layers of this effect, farthest first. If empty, a single
+     *         layer using the min and max size is used.
+     */
+    public ObservableList<ParticleLayer> getLayers() {
+        return layers;
+    }
+    
+    /**
+     * Replace the depth layers of this effect.
+     *
+     * @param layers The new layers, farthest first.
+     */
+    public void setLayers(List<ParticleLayer> layers) {
+        this.layers.setAll(layers);
+    }
+    
+    /**
+     * @return The emitter which spawns particles, or null for a fixed population.
+     */
+    public ObjectProperty<ParticleEmitter> emitterProperty() {
+        return emitter;
+    }
+    
+    /**
+     * Set the emitter which spawns particles. Setting or clearing the emitter
+     * regenerates every particle.
+     *
+     * @param emitter The new emitter, or null for a fixed population which
+     *            respawns along the edge.
+     */
+    public void setEmitter(ParticleEmitter emitter) {
+        this.emitter.set(emitter);
+    }
+    
+    /**
+     * @return The emitter which spawns particles, or null for a fixed population.
+     */
+    public ParticleEmitter getEmitter() {
+        return emitter.get();
+    }
+    
+    /**
+     * @return The position of the pointer in the coordinates of the bounds, or
+     *         null if there is no pointer.
+     */
+    public ObjectProperty<Point2D> pointerProperty() {
+        return pointer;
+    }
+    
+    /**
+     * Set the position of the pointer, typically from a mouse or touch event on
+     * the node this effect is applied to.
+     *
+     * @param pointer The new pointer position, or null if there is no pointer.
+     */
+    public void setPointer(Point2D pointer) {
+        this.pointer.set(pointer);
+    }
+    
+    /**
+     * @return The position of the pointer in the coordinates of the bounds, or
+     *         null if there is no pointer.
+     */
+    public Point2D getPointer() {
+        return pointer.get();
+    }
+    
+    /**
+     * @return How particles near the pointer react.
+     */
+    public ObjectProperty<PointerMode> pointerModeProperty() {
+        return pointerMode;
+    }
+    
+    /**
+     * Set how particles near the pointer react.
+     *
+     * @param pointerMode The new pointer mode. May be set to null to disable
+     *            pointer interaction entirely.
+     */
+    public void setPointerMode(PointerMode pointerMode) {
+        this.pointerMode.set(pointerMode);
+    }
+    
+    /**
+     * @return How particles near the pointer react.
+     */
+    public PointerMode getPointerMode() {
+        return pointerMode.get();
+    }
+    
+    /**
+     * @return The radius around the pointer in which particles react, in pixels.
+     */
+    public DoubleProperty pointerRadiusProperty() {
+        return pointerRadius;
+    }
+    
+    /**
+     * Set the radius around the pointer in which particles react.
+     *
+     * @param pointerRadius The new radius in pixels.
+     */
+    public void setPointerRadius(double pointerRadius) {
+        this.pointerRadius.set(pointerRadius);
+    }
+    
+    /**
+     * @return The radius around the pointer in which particles react, in pixels.
+     */
+    public double getPointerRadius() {
+        return pointerRadius.get();
+    }
+    
+    /**
+     * @return The multiplier controlling how strongly particles react to the
+     *         pointer.
+     */
+    public DoubleProperty pointerStrengthProperty() {
+        return pointerStrength;
+    }
+    
+    /**
+     * Set how strongly particles react to the pointer.
+     *
+     * @param pointerStrength The new strength multiplier.
+     */
+    public void setPointerStrength(double pointerStrength) {
+        this.pointerStrength.set(pointerStrength);
+    }
+    
+    /**
+     * @return The multiplier controlling how strongly particles react to the
+     *         pointer.
+     */
+    public double getPointerStrength() {
+        return pointerStrength.get();
+    }
+    
     /**
      * @return The angle of the fall in degrees. 0 Means fall is straight down, 180
      *         means straight up.
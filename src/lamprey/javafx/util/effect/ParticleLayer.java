@@ -0,0 +1,114 @@
+package lamprey.javafx.util.effect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A depth layer of a {@link ParticleFall}. Every particle belongs to exactly one
+ * layer, which decides its size range and speed. All particles of a layer are
+ * rendered as a single batch, so the blur and opacity of a layer are applied
+ * once for the whole layer rather than once per particle.
+ *
+ * Layers are immutable. To change a layer, replace it in
+ * {@link ParticleFall#getLayers()}.
+ */
+public final class ParticleLayer {
+
+    private final double minSize;
+    private final double maxSize;
+    private final double speed;
+    private final double blur;
+    private final double opacity;
+
+    /**
+     * Constructor.
+     *
+     * @param minSize The minimum size of the particles in this layer. This is a
+     *            multiplier.
+     * @param maxSize The maximum size of the particles in this layer. This is a
+     *            multiplier.
+     * @param speed Multiplier controlling the speed of the particles in this
+     *            layer. Must be positive.
+     * @param blur The radius of the gaussian blur applied to this layer. 0
+     *            disables the blur.
+     * @param opacity The opacity of this layer, between 0 and 1.
+     */
+    public ParticleLayer(double minSize, double maxSize, double speed, double blur, double opacity) {
+        if (minSize > maxSize) {
+            throw new IllegalArgumentException("minSize (" + minSize + ") must not exceed maxSize (" + maxSize + ")");
+        }
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive, was " + speed);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.speed = speed;
+        this.blur = Math.max(0, blur);
+        this.opacity = Math.min(1, Math.max(0, opacity));
+    }
+
+    /**
+     * Generate evenly spaced layers, ordered from the farthest to the nearest.
+     * Far layers hold small, slow, blurred and faint particles; the nearest layer
+     * holds sharp, opaque particles at full speed.
+     *
+     * @param numLayers The number of layers to generate.
+     * @param minSize The size of the smallest particle in the farthest layer.
+     * @param maxSize The size of the largest particle in the nearest layer.
+     * @param maxBlur The blur radius of the farthest layer.
+     * @return The generated layers, farthest first.
+     */
+    public static List<ParticleLayer> spread(int numLayers, double minSize, double maxSize, double maxBlur) {
+        if (numLayers < 1) {
+            throw new IllegalArgumentException("numLayers must be at least 1, was " + numLayers);
+        }
+        final List<ParticleLayer> layers = new ArrayList<>(numLayers);
+        final double step = (maxSize - minSize) / numLayers;
+        for (int i = 0; i < numLayers; i++) {
+
+            // 0 for the farthest layer, 1 for the nearest
+            final double depth = numLayers == 1 ? 1 : (double) i / (numLayers - 1);
+            layers.add(new ParticleLayer(minSize + step * i,
+                                         minSize + step * (i + 1),
+                                         0.5 + 0.5 * depth,
+                                         maxBlur * (1 - depth),
+                                         0.4 + 0.6 * depth));
+        }
+        return layers;
+    }
+
+    /**
+     * @return The minimum size of the particles in this layer.
+     */
+    public double getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @return The maximum size of the particles in this layer.
+     */
+    public double getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The speed multiplier of the particles in this layer.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return The gaussian blur radius of this layer.
+     */
+    public double getBlur() {
+        return blur;
+    }
+
+    /**
+     * @return The opacity of this layer.
+     */
+    public double getOpacity() {
+        return opacity;
+    }
+}
@@ -0,0 +1,47 @@
+package lamprey.javafx.util.effect;
+
+/**
+ * A small SplitMix64 random number generator. Unlike {@link Math#random()}, its
+ * whole state is a single long which can be read and restored, so a simulation
+ * can be snapshotted and resumed exactly.
+ */
+final class ParticleRandom {
+
+    private long state;
+
+    /**
+     * Constructor.
+     *
+     * @param seed The initial state.
+     */
+    ParticleRandom(long seed) {
+        state = seed;
+    }
+
+    /**
+     * @return A uniformly distributed value between 0 (inclusive) and 1
+     *         (exclusive).
+     */
+    double nextDouble() {
+        state += 0x9E3779B97F4A7C15L;
+        long z = state;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * @return The current state.
+     */
+    long getState() {
+        return state;
+    }
+
+    /**
+     * @param state The state to continue from.
+     */
+    void setState(long state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,142 @@
+package lamprey.javafx.util.effect;
+
+import java.util.Arrays;
+
+/**
+ * A uniform-grid spatial hash over particle indices. The grid is rebuilt every
+ * frame with a counting sort, so the entries of each cell end up contiguous in a
+ * single array. Queries only visit the cells overlapping the query circle. The
+ * arrays are reused between rebuilds and only grow when the particle count or
+ * the number of cells grows.
+ */
+final class SpatialGrid {
+
+    // Upper bound on the number of cells, so tiny radii don't create huge grids
+    private static final int MAX_CELLS = 1 << 16;
+
+    private int[] cellStart = new int[1];
+    private int[] cursor    = new int[0];
+    private int[] cellOf    = new int[0];
+    private int[] entries   = new int[0];
+    private int[] results   = new int[0];
+
+    private double minX;
+    private double minY;
+    private double cellSize;
+    private int    columns;
+    private int    rows;
+    private int    count;
+
+    /**
+     * Clear the grid and size it for the given area.
+     *
+     * @param minX The left edge of the area.
+     * @param minY The top edge of the area.
+     * @param width The width of the area.
+     * @param height The height of the area.
+     * @param cellSize The preferred size of a cell, typically the query radius.
+     * @param count The number of indices which may be inserted.
+     */
+    void reset(double minX, double minY, double width, double height, double cellSize, int count) {
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = Math.max(cellSize, Math.sqrt(width * height / MAX_CELLS));
+        this.count = count;
+        columns = Math.max(1, (int) Math.ceil(width / this.cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / this.cellSize));
+
+        final int cells = columns * rows;
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+            cursor = new int[cells];
+        }
+        if (cellOf.length < count) {
+            cellOf = new int[count];
+            entries = new int[count];
+            results = new int[count];
+        }
+        Arrays.fill(cellStart, 0, cells + 1, 0);
+        Arrays.fill(cellOf, 0, count, -1);
+    }
+
+    /**
+     * Insert an index at the given position. Must be called between
+     * {@link #reset} and {@link #build()}.
+     *
+     * @param index The index to insert, less than the count given to reset.
+     * @param x The x position.
+     * @param y The y position.
+     */
+    void insert(int index, double x, double y) {
+        final int cell = row(y) * columns + column(x);
+        cellOf[index] = cell;
+        cellStart[cell + 1]++;
+    }
+
+    /**
+     * Sort the inserted indices by cell. Must be called before querying.
+     */
+    void build() {
+        final int cells = columns * rows;
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+            cursor[c] = cellStart[c];
+        }
+        for (int i = 0; i < count; i++) {
+            if (cellOf[i] >= 0) {
+                entries[cursor[cellOf[i]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Collect the indices in every cell overlapping the given circle. The result
+     * may contain indices outside the circle, so callers should still check the
+     * distance.
+     *
+     * @param x The x position of the center.
+     * @param y The y position of the center.
+     * @param radius The radius of the circle.
+     * @return The number of results, retrieved with {@link #result(int)}.
+     */
+    int query(double x, double y, double radius) {
+        final int left = column(x - radius);
+        final int right = column(x + radius);
+        final int top = row(y - radius);
+        final int bottom = row(y + radius);
+        int found = 0;
+        for (int r = top; r <= bottom; r++) {
+            for (int c = left; c <= right; c++) {
+                final int cell = r * columns + c;
+                for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+                    results[found++] = entries[e];
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param i The position in the results of the last query.
+     * @return The index at the given position.
+     */
+    int result(int i) {
+        return results[i];
+    }
+
+    /**
+     * @param x An x position.
+     * @return The column containing the position, clamped to the grid.
+     */
+    private int column(double x) {
+        return Math.min(columns - 1, Math.max(0, (int) ((x - minX) / cellSize)));
+    }
+
+    /**
+     * @param y A y position.
+     * @return The row containing the position, clamped to the grid.
+     */
+    private int row(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) ((y - minY) / cellSize)));
+    }
+}
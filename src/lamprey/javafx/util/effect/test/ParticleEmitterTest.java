@@ -0,0 +1,49 @@
+package lamprey.javafx.util.effect.test;
+
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.effect.ImageInput;
+import lamprey.javafx.util.effect.ParticleEmitter;
+import lamprey.javafx.util.effect.ParticleFall;
+import lamprey.javafx.util.effect.ParticleLayer;
+import lamprey.javafx.util.effect.ParticleUtils;
+
+/**
+ * Checks that an emitter running close to capacity never recycles a live
+ * particle. Particles travel at different speeds and angles, so they leave the
+ * bounds out of spawn order, and their slots must still be reused right away.
+ * Frames are driven directly, so no stage is shown.
+ *
+ * @param args unused
+ */
+public class ParticleEmitterTest {
+
+    private static final int    CAPACITY = 200;
+    private static final int    FRAMES   = 3600;
+    private static final long   FRAME_NS = 16_666_667;
+
+    public static void main(String[] args) {
+        final ParticleFall fall = new ParticleFall(new ImageInput(ParticleUtils.genSnowflake()),
+                                                   new SimpleObjectProperty<Bounds>(new BoundingBox(0, 0, 800, 600)));
+        fall.setNumParticles(CAPACITY);
+        fall.setLayers(ParticleLayer.spread(3, 0.3, 1, 2));
+
+        // The slowest particles need over 3 seconds to cross the bounds, so more
+        // than CAPACITY particles are spawned while the oldest one is still
+        // alive, but faster particles leave early and keep the live count below
+        // capacity. Only reusing those slots right away avoids recycling.
+        fall.setEmitter(ParticleEmitter.point(0.5, 0, 80, 0, 0, 60));
+
+        int peak = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            fall.getAnimation().handle(frame * FRAME_NS);
+            final int live = fall.getNumLiveParticles();
+            if (live >= CAPACITY) {
+                throw new IllegalStateException("Every slot was in use at frame " + frame + ", so a live particle would be recycled");
+            }
+            peak = Math.max(peak, live);
+        }
+        System.out.println("OK: peak of " + peak + " live particles out of " + CAPACITY);
+    }
+}
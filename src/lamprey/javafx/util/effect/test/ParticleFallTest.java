@@ -10,6 +10,7 @@ import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import lamprey.javafx.util.effect.ParticleFall;
+import lamprey.javafx.util.effect.ParticleLayer;
 import lamprey.javafx.util.effect.ParticleUtils;
 
 /**
@@ -23,6 +24,7 @@ public class ParticleFallTest extends Application {
         Pane root = new Pane();
         ParticleFall snow = new ParticleFall(new ImageInput(ParticleUtils.genSnowflake()), root.boundsInLocalProperty());
         snow.setSpinOrientation(Orientation.HORIZONTAL);
+        snow.setLayers(ParticleLayer.spread(3, 0.3, 1, 2));
         root.setEffect(snow);
         snow.getAnimation().start();
         final var scene = new Scene(root,
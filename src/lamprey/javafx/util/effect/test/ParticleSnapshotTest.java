@@ -0,0 +1,147 @@
+package lamprey.javafx.util.effect.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.effect.ImageInput;
+import lamprey.javafx.util.effect.ParticleEmitter;
+import lamprey.javafx.util.effect.ParticleFall;
+import lamprey.javafx.util.effect.ParticleLayer;
+import lamprey.javafx.util.effect.ParticleUtils;
+
+/**
+ * Checks that a snapshot restored into a fresh effect saves back to exactly the
+ * same bytes, both with and without an emitter, and that truncated or corrupt
+ * snapshots are rejected with an IOException without changing the effect.
+ * Frames are driven directly, so no stage is shown.
+ *
+ * @param args unused
+ */
+public class ParticleSnapshotTest {
+
+    private static final int    CAPACITY = 300;
+    private static final int    FRAMES   = 600;
+    private static final long   FRAME_NS = 16_666_667;
+
+    public static void main(String[] args) throws IOException {
+        final Path dir = Files.createTempDirectory("particle-snapshot");
+        try {
+            final ParticleFall plain = createEffect();
+            plain.setLayers(ParticleLayer.spread(3, 0.3, 1, 2));
+            run(plain);
+            checkRoundTrip(plain, dir, "plain");
+
+            final ParticleFall emitting = createEffect();
+            emitting.setLayers(ParticleLayer.spread(2, 0.5, 1, 1));
+
+            // Spawns faster than particles leave, so the snapshot holds live
+            // particles, dead particles and free slots
+            emitting.setEmitter(ParticleEmitter.line(0.2, 0, 0.8, 0, 120, 50, 2, 30));
+            run(emitting);
+            emitting.burst();
+            checkRoundTrip(emitting, dir, "emitting");
+            checkRejected(emitting, dir);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+        System.out.println("OK: snapshots round trip and corrupt snapshots are rejected");
+    }
+
+    /**
+     * @return A new effect with the test capacity.
+     */
+    private static ParticleFall createEffect() {
+        final ParticleFall fall = new ParticleFall(new ImageInput(ParticleUtils.genSnowflake()),
+                                                   new SimpleObjectProperty<Bounds>(new BoundingBox(0, 0, 800, 600)));
+        fall.setNumParticles(CAPACITY);
+        return fall;
+    }
+
+    /**
+     * Advance the effect by the test number of frames.
+     *
+     * @param fall The effect to advance.
+     */
+    private static void run(ParticleFall fall) {
+        for (int frame = 0; frame < FRAMES; frame++) {
+            fall.getAnimation().handle(frame * FRAME_NS);
+        }
+    }
+
+    /**
+     * Save the effect, restore it into a fresh effect and save that again. Both
+     * saves must be identical.
+     *
+     * @param fall The effect to save.
+     * @param dir The directory to save to.
+     * @param name The name of the case.
+     */
+    private static void checkRoundTrip(ParticleFall fall, Path dir, String name) throws IOException {
+        final Path saved = dir.resolve(name + ".bin");
+        final Path resaved = dir.resolve(name + "-resaved.bin");
+        fall.saveSnapshot(saved);
+
+        final ParticleFall restored = createEffect();
+        restored.restoreSnapshot(saved);
+        restored.saveSnapshot(resaved);
+        if (!Arrays.equals(Files.readAllBytes(saved), Files.readAllBytes(resaved))) {
+            throw new IllegalStateException("Restoring the " + name + " snapshot did not reproduce it");
+        }
+    }
+
+    /**
+     * Restore truncated and corrupt copies of a snapshot of the effect. Each must
+     * throw an IOException and leave the effect as it was.
+     *
+     * @param fall The effect to restore into.
+     * @param dir The directory to save to.
+     */
+    private static void checkRejected(ParticleFall fall, Path dir) throws IOException {
+        final Path original = dir.resolve("original.bin");
+        fall.saveSnapshot(original);
+        final byte[] bytes = Files.readAllBytes(original);
+
+        final byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+
+        final byte[] badMagic = bytes.clone();
+        badMagic[0] ^= 0xFF;
+
+        // The spawn order is the last column, padded to the capacity, and starts
+        // with the oldest live slot
+        if (fall.getNumLiveParticles() == 0) {
+            throw new IllegalStateException("No live particles to corrupt the spawn order of");
+        }
+        final byte[] badSlot = bytes.clone();
+        ByteBuffer.wrap(badSlot).putInt(badSlot.length - CAPACITY * Integer.BYTES, Integer.MAX_VALUE);
+
+        final byte[][] corrupt = { truncated, badMagic, badSlot };
+        final String[] names = { "truncated", "bad-magic", "bad-slot" };
+        for (int i = 0; i < corrupt.length; i++) {
+            final Path file = dir.resolve(names[i] + ".bin");
+            Files.write(file, corrupt[i]);
+            try {
+                fall.restoreSnapshot(file);
+                throw new IllegalStateException("The " + names[i] + " snapshot was accepted");
+            } catch (IOException expected) {
+                // The effect must be left untouched
+            }
+            final Path after = dir.resolve(names[i] + "-after.bin");
+            fall.saveSnapshot(after);
+            if (!Arrays.equals(bytes, Files.readAllBytes(after))) {
+                throw new IllegalStateException("Rejecting the " + names[i] + " snapshot changed the effect");
+            }
+        }
+    }
+}